@@ -67,6 +67,7 @@ public class DatabaseApiToolConfig {
         apiTool.setDescription(apiInfo.getApiDesc());
         apiTool.setApiType(apiInfo.getApiType());
         apiTool.setMockData(apiInfo.getMockData());
+        apiTool.setBatchKey(apiInfo.getBatchKeyParam());
         
         // 处理API路径：如果不是完整URL，则添加基础URL前缀
         String apiPath = apiInfo.getApiPath();
@@ -106,6 +107,7 @@ public class DatabaseApiToolConfig {
         private String method = "GET";
         private String apiType;
         private String mockData;
+        private String batchKey;
         private Map<String, Object> headers;
         private Map<String, ParameterInfo> parameters;
     }
@@ -0,0 +1,153 @@
+package com.guian.smartsite.server.config;
+
+import com.guian.smartsite.server.service.DynamicToolService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.env.Environment;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 启动预热 - 工具注册表加载完成后预先建立上游连接，并预热MCP请求处理的热点路径
+ * 预热在 CommandLineRunner 中同步执行，完成后Spring Boot才会将应用标记为就绪（ACCEPTING_TRAFFIC）
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class WarmUpRunner implements CommandLineRunner {
+
+    private final DatabaseApiToolConfig databaseApiToolConfig;
+    private final DynamicToolService dynamicToolService;
+    private final WebClient webClient;
+    private final Environment environment;
+
+    @Value("${mcp.warmup.enabled:false}")
+    private boolean enabled;
+
+    @Value("${mcp.warmup.iterations:20}")
+    private int iterations;
+
+    @Value("${mcp.warmup.connections-per-host:2}")
+    private int connectionsPerHost;
+
+    @Value("${mcp.warmup.timeout-ms:10000}")
+    private long timeoutMs;
+
+    @Override
+    public void run(String... args) {
+        if (!enabled) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        Duration timeout = Duration.ofMillis(timeoutMs);
+        log.info("开始启动预热...");
+
+        // 各阶段相互独立，单个阶段失败或超时不影响其余阶段
+        runPhase("上游连接", () -> {
+            Set<String> origins = collectUpstreamOrigins();
+            log.info("预热 {} 个上游主机的连接: {}", origins.size(), origins);
+            dynamicToolService.warmUpConnections(origins, connectionsPerHost, timeout)
+                    .block(timeout.multipliedBy(2));
+        });
+        runPhase("/mcp 端点", () -> warmUpMcpEndpoint(timeout));
+        runPhase("工具分发路径", () -> warmUpDispatch(timeout));
+
+        log.info("启动预热结束，耗时 {}ms", System.currentTimeMillis() - start);
+    }
+
+    private void runPhase(String phase, Runnable action) {
+        try {
+            action.run();
+        } catch (Exception e) {
+            log.warn("{}预热失败，应用将继续启动: {}", phase, e.getMessage());
+        }
+    }
+
+    /**
+     * 收集所有上游主机（基础URL与各工具的完整URL），按 scheme://host:port 去重
+     */
+    private Set<String> collectUpstreamOrigins() {
+        Set<String> origins = new LinkedHashSet<>();
+        addOrigin(origins, databaseApiToolConfig.getApiBaseUrl());
+        if (databaseApiToolConfig.getTools() != null) {
+            for (DatabaseApiToolConfig.ApiTool tool : databaseApiToolConfig.getTools()) {
+                if (dynamicToolService.requiresUpstream(tool.getName())) {
+                    addOrigin(origins, tool.getUrl());
+                }
+            }
+        }
+        return origins;
+    }
+
+    private void addOrigin(Set<String> origins, String url) {
+        try {
+            URI uri = URI.create(url);
+            if (uri.getScheme() != null && uri.getHost() != null) {
+                origins.add(uri.getScheme() + "://" + uri.getHost() + (uri.getPort() != -1 ? ":" + uri.getPort() : ""));
+            }
+        } catch (Exception e) {
+            log.debug("忽略无法解析的URL: {}", url);
+        }
+    }
+
+    /**
+     * 通过本机HTTP调用 /mcp 的 initialize 与 tools/list，预热WebFlux与Jackson编解码路径
+     */
+    private void warmUpMcpEndpoint(Duration timeout) {
+        Integer port = environment.getProperty("local.server.port", Integer.class);
+        if (port == null) {
+            log.debug("未获取到本地服务端口，跳过 /mcp 预热");
+            return;
+        }
+
+        String endpoint = "http://localhost:" + port + "/mcp";
+        List<Map<String, Object>> requests = List.of(
+            Map.of("jsonrpc", "2.0", "id", "warmup-initialize", "method", "initialize", "params", Map.of()),
+            Map.of("jsonrpc", "2.0", "id", "warmup-tools-list", "method", "tools/list")
+        );
+
+        Flux.range(0, iterations)
+                .concatMap(i -> Flux.fromIterable(requests)
+                        .concatMap(request -> webClient.post()
+                                .uri(endpoint)
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .bodyValue(request)
+                                .retrieve()
+                                .bodyToMono(String.class)))
+                .then()
+                .block(timeout);
+        log.info("/mcp 端点预热完成，共 {} 轮", iterations);
+    }
+
+    /**
+     * 直接调用 DynamicToolService 预热工具分发路径（不经过准入控制，避免预热样本影响延迟基线）
+     * 只调用静态工具和一个不存在的工具，不会访问上游接口
+     */
+    private void warmUpDispatch(Duration timeout) {
+        List<String> toolNames = databaseApiToolConfig.getTools() == null ? List.of() :
+                databaseApiToolConfig.getTools().stream()
+                        .map(DatabaseApiToolConfig.ApiTool::getName)
+                        .filter(name -> !dynamicToolService.requiresUpstream(name))
+                        .toList();
+
+        Flux.range(0, iterations)
+                .concatMap(i -> Flux.concat(
+                        dynamicToolService.callApi("__warmup__", Map.of()),
+                        Flux.fromIterable(toolNames).concatMap(name -> dynamicToolService.callApi(name, Map.of()))))
+                .then()
+                .block(timeout);
+        log.info("工具分发路径预热完成，共 {} 轮", iterations);
+    }
+}
@@ -1,9 +1,14 @@
 package com.guian.smartsite.server.controller;
 
+import com.guian.smartsite.server.service.AdmissionControlService;
 import com.guian.smartsite.server.service.DynamicToolService;
 import com.guian.smartsite.server.config.DatabaseApiToolConfig;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Mono;
@@ -20,6 +25,8 @@ public class McpProtocolController {
 
     private final DynamicToolService dynamicToolService;
     private final DatabaseApiToolConfig databaseApiToolConfig;
+    private final AdmissionControlService admissionControlService;
+    private final ApplicationAvailability applicationAvailability;
 
 
     /**
@@ -41,7 +48,7 @@ public class McpProtocolController {
                 return Mono.just(ResponseEntity.ok(createErrorResponse(id, -32600, "Invalid Request - 不是有效的JSON-RPC 2.0请求")));
             }
             
-            // 处理不同的MCP方法
+            // 处理不同的MCP方法（initialize 与 tools/list 开销小，不经过准入控制，超载时也能优先响应）
             switch (method) {
                 case "initialize":
                     return Mono.just(handleInitialize(id, params));
@@ -146,8 +153,22 @@ public class McpProtocolController {
                 return Mono.just(ResponseEntity.badRequest().body(createErrorResponse(id, -32602, "Missing tool name")));
             }
             
+            Map<String, Object> callArguments = arguments != null ? arguments : Map.of();
+            Mono<String> callResult;
+            if (dynamicToolService.requiresUpstream(toolName)) {
+                // 按截止时间调用 DynamicToolService，由其对每个上游请求进行准入控制（合并的批次只占一个许可）；
+                // 错误在释放许可之后才转换为错误描述，使准入控制能看到真实的调用结果
+                long deadline = admissionControlService.resolveDeadline(params);
+                callResult = dynamicToolService.invokeApi(toolName, callArguments, deadline)
+                    .onErrorResume(e -> !(e instanceof AdmissionControlService.ServerBusyException),
+                        e -> Mono.just(dynamicToolService.describeFailure(toolName, e)));
+            } else {
+                // 未知工具与静态工具不访问上游，不经过准入控制
+                callResult = dynamicToolService.callApi(toolName, callArguments);
+            }
+            
             // 统一使用 DynamicToolService 处理所有工具调用 - 使用响应式方式
-            return dynamicToolService.callApi(toolName, arguments != null ? arguments : Map.of())
+            return callResult
                 .map(result -> {
                     Map<String, Object> content = Map.of(
                         "type", "text",
@@ -157,6 +178,10 @@ public class McpProtocolController {
                     Map<String, Object> responseResult = Map.of("content", List.of(content));
                     return ResponseEntity.ok(createSuccessResponse(id, responseResult));
                 })
+                .onErrorResume(AdmissionControlService.ServerBusyException.class, e ->
+                    Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, "1")
+                        .body(createErrorResponse(id, -32000, "Server busy - 服务器繁忙: " + e.getMessage()))))
                 .onErrorResume(e -> {
                     log.error("工具调用失败", e);
                     return Mono.just(ResponseEntity.status(500).body(createErrorResponse(id, -32603, "Tool call failed: " + e.getMessage())));
@@ -194,16 +219,19 @@ public class McpProtocolController {
     }
     
     /**
-     * MCP协议健康检查
+     * MCP协议健康检查 - 未就绪（启动预热中或正在停机）时返回503及当前就绪状态
      */
     @GetMapping("/mcp/health")
     public ResponseEntity<Map<String, Object>> mcpHealth() {
-        return ResponseEntity.ok(Map.of(
-            "status", "healthy",
+        ReadinessState readiness = applicationAvailability.getReadinessState();
+        boolean ready = readiness == ReadinessState.ACCEPTING_TRAFFIC;
+        return ResponseEntity.status(ready ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE).body(Map.of(
+            "status", ready ? "healthy" : readiness.name(),
             "protocol", "MCP JSON-RPC 2.0",
             "service", "贵安智能选址MCP服务器",
             "version", "1.0.0",
-            "capabilities", List.of("tools")
+            "capabilities", List.of("tools"),
+            "admission", admissionControlService.snapshot()
         ));
     }
 }
\ No newline at end of file
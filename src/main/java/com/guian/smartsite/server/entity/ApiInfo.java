@@ -170,4 +170,13 @@ public class ApiInfo {
      */
     @Column(name = "cache_config_id", columnDefinition = "BIGINT")
     private Long cacheConfigId;
+    
+    /**
+     * 批量键参数名（非空时，同一工具仅该参数不同的并发调用会合并为一次上游请求）
+     * 上游需接受多个键值（GET为逗号拼接，其他方法为数组），并返回记录数组、
+     * 带 data/rows/records/list 数组的包装对象或GeoJSON FeatureCollection，每条记录（或其 properties）包含该键字段；
+     * 包装对象中除 code/msg/message/success/status/type 外不能有 total、bbox 等汇总字段，否则回退为逐个调用
+     */
+    @Column(name = "batch_key_param")
+    private String batchKeyParam;
 }
\ No newline at end of file
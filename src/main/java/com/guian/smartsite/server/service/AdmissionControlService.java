@@ -0,0 +1,343 @@
+package com.guian.smartsite.server.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 准入控制服务 - 限制tools/call的全局与单工具并发，超载时快速拒绝
+ * 全局并发上限根据观测到的调用延迟自适应调整（AIMD），
+ * 等待中的请求在无法于截止时间前完成时直接返回"服务器繁忙"
+ * 只有注册表中需要访问上游的工具才经过准入控制，工具名由调用方事先校验
+ */
+@Service
+@Slf4j
+public class AdmissionControlService {
+
+    @Value("${mcp.admission.enabled:true}")
+    private boolean enabled;
+
+    @Value("${mcp.admission.initial-limit:20}")
+    private int initialLimit;
+
+    @Value("${mcp.admission.min-limit:4}")
+    private int minLimit;
+
+    @Value("${mcp.admission.max-limit:200}")
+    private int maxLimit;
+
+    @Value("${mcp.admission.per-tool-limit:10}")
+    private int perToolLimit;
+
+    @Value("${mcp.admission.max-queue-size:100}")
+    private int maxQueueSize;
+
+    @Value("${mcp.admission.default-timeout-ms:30000}")
+    private long defaultTimeoutMs;
+
+    /**
+     * 延迟容忍倍数：工具的平滑延迟超过其最小延迟的该倍数时视为拥塞，收缩并发上限
+     */
+    @Value("${mcp.admission.latency-tolerance:2.0}")
+    private double latencyTolerance;
+
+    @Value("${mcp.admission.backoff-ratio:0.9}")
+    private double backoffRatio;
+
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+    private final Map<String, Integer> toolInFlight = new HashMap<>();
+    private final Map<String, LatencyStats> toolLatency = new HashMap<>();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private int inFlight;
+    private double limit;
+
+    @PostConstruct
+    public void init() {
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        log.info("准入控制已{}: 初始并发上限 {}, 单工具上限 {}, 队列长度 {}, 默认超时 {}ms",
+                enabled ? "启用" : "关闭", (int) limit, perToolLimit, maxQueueSize, defaultTimeoutMs);
+    }
+
+    /**
+     * 计算请求截止时间，客户端可通过 params._meta.timeoutMs 缩短（不能超过默认超时）
+     */
+    public long resolveDeadline(Map<String, Object> params) {
+        long timeoutMs = defaultTimeoutMs;
+        Object meta = params != null ? params.get("_meta") : null;
+        if (meta instanceof Map<?, ?> metaMap && metaMap.get("timeoutMs") instanceof Number requested) {
+            timeoutMs = Math.min(timeoutMs, Math.max(0L, requested.longValue()));
+        }
+        return now() + timeoutMs;
+    }
+
+    /**
+     * 距截止时间的剩余时长，用于向下游传递超时
+     */
+    public Duration remaining(long deadline) {
+        return Duration.ofMillis(Math.max(1L, deadline - now()));
+    }
+
+    /**
+     * 申请一次工具调用的执行许可，容量不足时排队，无法按时完成则以 ServerBusyException 失败
+     */
+    public Mono<Permit> acquire(String toolName, long deadline) {
+        if (!enabled) {
+            return Mono.just(new Permit(toolName, now(), false));
+        }
+
+        return Mono.<Permit>create(sink -> {
+            Waiter waiter = new Waiter(toolName, deadline, sink);
+            Permit permit = null;
+            String rejectReason = null;
+            long maxWaitMs = 0;
+
+            synchronized (this) {
+                if (tryAdmit(toolName)) {
+                    permit = new Permit(toolName, now(), true);
+                } else if (waiters.size() >= maxQueueSize) {
+                    rejectReason = "等待队列已满";
+                } else {
+                    maxWaitMs = deadline - now() - expectedLatencyMs(toolName);
+                    if (maxWaitMs <= 0) {
+                        rejectReason = "无法在截止时间前完成";
+                    } else {
+                        waiters.addLast(waiter);
+                    }
+                }
+            }
+
+            if (permit != null) {
+                sink.success(permit);
+                return;
+            }
+            if (rejectReason != null) {
+                sink.error(reject(toolName, rejectReason));
+                return;
+            }
+
+            log.debug("工具 {} 超出并发上限，进入等待队列，最长等待 {}ms", toolName, maxWaitMs);
+            Disposable timer = Mono.delay(Duration.ofMillis(maxWaitMs))
+                    .subscribe(tick -> expire(waiter));
+            sink.onDispose(() -> {
+                timer.dispose();
+                cancel(waiter);
+            });
+        }).doOnDiscard(Permit.class, Permit::abandon);
+    }
+
+    /**
+     * 当前准入控制状态，用于健康检查
+     */
+    public synchronized Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("enabled", enabled);
+        snapshot.put("limit", (int) limit);
+        snapshot.put("inFlight", inFlight);
+        snapshot.put("queued", waiters.size());
+        snapshot.put("rejected", rejectedCount.get());
+        return snapshot;
+    }
+
+    private boolean tryAdmit(String toolName) {
+        int toolCount = toolInFlight.getOrDefault(toolName, 0);
+        if (inFlight >= (int) limit || toolCount >= perToolLimit) {
+            return false;
+        }
+        inFlight++;
+        toolInFlight.put(toolName, toolCount + 1);
+        return true;
+    }
+
+    private void release(Permit permit, boolean success, boolean sample) {
+        List<Runnable> actions;
+        synchronized (this) {
+            inFlight--;
+            toolInFlight.computeIfPresent(permit.toolName, (name, count) -> count > 1 ? count - 1 : null);
+            if (sample) {
+                onSample(permit.toolName, now() - permit.startTime, success);
+            }
+            actions = drain();
+        }
+        // 在锁外通知等待者，避免下游回调重入
+        actions.forEach(Runnable::run);
+    }
+
+    /**
+     * 按FIFO顺序唤醒等待者；已无法按时完成的直接拒绝
+     */
+    private List<Runnable> drain() {
+        List<Runnable> actions = new ArrayList<>();
+        long now = now();
+        Iterator<Waiter> iterator = waiters.iterator();
+        while (iterator.hasNext() && inFlight < (int) limit) {
+            Waiter waiter = iterator.next();
+            if (waiter.deadline - now <= expectedLatencyMs(waiter.toolName)) {
+                iterator.remove();
+                actions.add(() -> waiter.sink.error(reject(waiter.toolName, "无法在截止时间前完成")));
+            } else if (tryAdmit(waiter.toolName)) {
+                iterator.remove();
+                Permit permit = new Permit(waiter.toolName, now, true);
+                actions.add(() -> waiter.sink.success(permit));
+            }
+        }
+        return actions;
+    }
+
+    /**
+     * AIMD：只在并发接近上限时调整 - 平滑延迟正常则加性增长，出现拥塞或过载类失败则乘性收缩
+     * 延迟基线按工具分别统计，且只记录成功调用，避免快速失败的调用拉低基线
+     */
+    private void onSample(String toolName, long latencyMs, boolean success) {
+        LatencyStats stats = toolLatency.computeIfAbsent(toolName, name -> new LatencyStats());
+        if (success) {
+            stats.record(latencyMs);
+        }
+
+        // 并发远低于上限时延迟抖动不代表过载，不调整上限（inFlight 已扣除本次调用）
+        if (inFlight + 1 < limit / 2) {
+            return;
+        }
+
+        double previous = limit;
+        boolean congested = !Double.isNaN(stats.smoothedLatencyMs)
+                && stats.smoothedLatencyMs > Math.max(1.0, stats.minLatencyMs) * latencyTolerance;
+        if (!success || congested) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+        } else {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+        if ((int) previous != (int) limit) {
+            log.debug("并发上限调整: {} -> {} (工具 {} 平滑延迟 {}ms, 基线 {}ms, 成功: {})",
+                    (int) previous, (int) limit, toolName, Math.round(stats.smoothedLatencyMs),
+                    Math.round(stats.minLatencyMs), success);
+        }
+    }
+
+    /**
+     * 超时、连接失败与上游5xx视为过载信号；其余错误（如4xx）说明上游正常响应，按成功样本统计
+     */
+    private static boolean isOverloadSignal(Throwable error) {
+        if (error instanceof TimeoutException || error instanceof WebClientRequestException) {
+            return true;
+        }
+        return error instanceof WebClientResponseException responseException
+                && responseException.getStatusCode().is5xxServerError();
+    }
+
+    private void expire(Waiter waiter) {
+        boolean removed;
+        synchronized (this) {
+            removed = waiters.remove(waiter);
+        }
+        if (removed) {
+            waiter.sink.error(reject(waiter.toolName, "等待超时，无法在截止时间前完成"));
+        }
+    }
+
+    private synchronized void cancel(Waiter waiter) {
+        waiters.remove(waiter);
+    }
+
+    private ServerBusyException reject(String toolName, String reason) {
+        rejectedCount.incrementAndGet();
+        log.warn("工具 {} 调用被拒绝: {}", toolName, reason);
+        return new ServerBusyException(reason);
+    }
+
+    private double expectedLatencyMs(String toolName) {
+        LatencyStats stats = toolLatency.get(toolName);
+        return stats != null && !Double.isNaN(stats.smoothedLatencyMs) ? stats.smoothedLatencyMs : 0;
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    private static class LatencyStats {
+        private double minLatencyMs = Double.NaN;
+        private double smoothedLatencyMs = Double.NaN;
+
+        void record(long latencyMs) {
+            if (Double.isNaN(smoothedLatencyMs)) {
+                smoothedLatencyMs = latencyMs;
+                minLatencyMs = latencyMs;
+                return;
+            }
+            smoothedLatencyMs = smoothedLatencyMs * 0.8 + latencyMs * 0.2;
+            // 最小延迟缓慢上浮，避免一次偶然的极低延迟永久压低基线
+            minLatencyMs = latencyMs < minLatencyMs ? latencyMs : minLatencyMs + (latencyMs - minLatencyMs) * 0.01;
+        }
+    }
+
+    private record Waiter(String toolName, long deadline, MonoSink<Permit> sink) {
+    }
+
+    /**
+     * 执行许可 - 调用结束后必须通过 complete/fail/abandon 之一归还
+     */
+    public final class Permit {
+        private final String toolName;
+        private final long startTime;
+        private final boolean tracked;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(String toolName, long startTime, boolean tracked) {
+            this.toolName = toolName;
+            this.startTime = startTime;
+            this.tracked = tracked;
+        }
+
+        public void complete() {
+            doRelease(true, true);
+        }
+
+        /**
+         * 调用以错误结束，按错误类型决定是否作为过载信号
+         */
+        public void fail(Throwable error) {
+            doRelease(!isOverloadSignal(error), true);
+        }
+
+        /**
+         * 调用被取消（如客户端断开），归还许可但不参与延迟统计
+         */
+        public void abandon() {
+            doRelease(false, false);
+        }
+
+        private void doRelease(boolean success, boolean sample) {
+            if (tracked && released.compareAndSet(false, true)) {
+                release(this, success, sample);
+            }
+        }
+    }
+
+    /**
+     * 服务器繁忙异常 - 请求被准入控制拒绝
+     */
+    public static class ServerBusyException extends RuntimeException {
+        public ServerBusyException(String message) {
+            super(message);
+        }
+    }
+}
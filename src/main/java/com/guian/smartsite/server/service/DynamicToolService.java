@@ -1,14 +1,25 @@
 package com.guian.smartsite.server.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.guian.smartsite.server.config.DatabaseApiToolConfig;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.time.Duration;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -17,18 +28,60 @@ import java.util.Map;
 public class DynamicToolService {
     
     private final DatabaseApiToolConfig databaseApiToolConfig;
+    private final AdmissionControlService admissionControlService;
+    private final HttpClient httpClient;
     private final WebClient webClient;
+    private final ObjectMapper objectMapper;
+    private final ToolCallBatcher toolCallBatcher;
+    private final boolean minifyJson;
     
-    public DynamicToolService(DatabaseApiToolConfig databaseApiToolConfig) {
+    public DynamicToolService(DatabaseApiToolConfig databaseApiToolConfig,
+                              AdmissionControlService admissionControlService,
+                              ObjectMapper objectMapper,
+                              @Value("${mcp.batching.enabled:true}") boolean batchingEnabled,
+                              @Value("${mcp.batching.window-ms:5}") long batchWindowMs,
+                              @Value("${mcp.batching.max-batch-size:50}") int maxBatchSize,
+                              @Value("${mcp.compression.upstream:true}") boolean upstreamCompression,
+                              @Value("${mcp.compression.minify-json:false}") boolean minifyJson) {
         this.databaseApiToolConfig = databaseApiToolConfig;
+        this.admissionControlService = admissionControlService;
+        this.objectMapper = objectMapper;
+        this.minifyJson = minifyJson;
+        this.toolCallBatcher = new ToolCallBatcher(this, objectMapper, batchingEnabled,
+                Duration.ofMillis(batchWindowMs), maxBatchSize);
         
-        // 创建WebClient并设置超时
-        this.webClient = WebClient.builder()
-                .codecs(configurer -> configurer.defaultCodecs().maxInMemorySize(1024 * 1024)) // 1MB
-                .build();
+        // 创建WebClient并设置超时，保留HttpClient引用以便启动时预热连接池
+        // compress(true) 负责解压上游的gzip/deflate响应，但自身只声明 gzip，因此显式设置 Accept-Encoding
+        this.httpClient = HttpClient.create().compress(upstreamCompression);
+        WebClient.Builder builder = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .codecs(configurer -> configurer.defaultCodecs().maxInMemorySize(1024 * 1024)); // 1MB
+        if (upstreamCompression) {
+            builder.defaultHeader(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+        }
+        this.webClient = builder.build();
     }
     
+    /**
+     * 调用API工具，失败时返回错误描述
+     */
     public Mono<String> callApi(String toolName, Map<String, Object> parameters) {
+        return invokeApi(toolName, parameters, admissionControlService.resolveDeadline(null))
+                .onErrorResume(e -> Mono.just(describeFailure(toolName, e)));
+    }
+    
+    /**
+     * 工具是否存在且需要访问上游接口（未知工具与静态工具不需要）
+     */
+    public boolean requiresUpstream(String toolName) {
+        DatabaseApiToolConfig.ApiTool tool = findToolByName(toolName);
+        return tool != null && !("STATIC".equalsIgnoreCase(tool.getApiType()) && tool.getMockData() != null);
+    }
+    
+    /**
+     * 调用API工具，须在截止时间前完成；访问上游的请求经过准入控制，上游错误原样传递
+     */
+    public Mono<String> invokeApi(String toolName, Map<String, Object> parameters, long deadline) {
         DatabaseApiToolConfig.ApiTool tool = findToolByName(toolName);
         if (tool == null) {
             return Mono.just("工具不存在: " + toolName);
@@ -40,9 +93,55 @@ public class DynamicToolService {
             return Mono.just(tool.getMockData());
         }
         
-        try {
-            log.info("调用API工具: {} - {}", toolName, tool.getUrl());
-            
+        // 声明了批量键参数的工具 - 交给微批处理器合并短时间窗口内的调用，合并后的请求只占一个准入许可
+        if (toolCallBatcher.isBatchable(tool, parameters)) {
+            return toolCallBatcher.submit(tool, parameters, deadline, admissionControlService.remaining(deadline));
+        }
+        
+        return invokeAdmitted(tool, parameters, deadline);
+    }
+    
+    /**
+     * 获取准入许可后调用上游接口，错误在释放许可时交给准入控制统计，再原样向下游传递
+     */
+    Mono<String> invokeAdmitted(DatabaseApiToolConfig.ApiTool tool, Map<String, Object> parameters, long deadline) {
+        return Mono.usingWhen(
+                admissionControlService.acquire(tool.getName(), deadline),
+                permit -> invokeUpstream(tool, parameters, admissionControlService.remaining(deadline)),
+                permit -> Mono.fromRunnable(permit::complete),
+                (permit, e) -> Mono.fromRunnable(() -> permit.fail(e)),
+                permit -> Mono.fromRunnable(permit::abandon));
+    }
+    
+    /**
+     * 将调用失败转换为返回给客户端的错误描述
+     */
+    public String describeFailure(String toolName, Throwable e) {
+        if (e instanceof WebClientResponseException responseException) {
+            log.error("API工具 {} 调用失败，状态码: {}", toolName, responseException.getStatusCode(), e);
+        } else {
+            log.error("调用API工具 {} 时发生异常", toolName, e);
+        }
+        return "调用API工具失败: " + e.getMessage();
+    }
+    
+    /**
+     * 单次调用上游接口，错误原样向下游传递
+     */
+    Mono<String> invokeUpstream(DatabaseApiToolConfig.ApiTool tool, Map<String, Object> parameters, Duration timeout) {
+        String toolName = tool.getName();
+        log.info("调用API工具: {} - {}", toolName, tool.getUrl());
+        
+        return request(tool, parameters, timeout)
+                .map(this::minify)
+                .doOnSuccess(response -> log.info("API工具 {} 调用成功", toolName));
+    }
+    
+    /**
+     * 向上游接口发送请求，错误原样向下游传递
+     */
+    Mono<String> request(DatabaseApiToolConfig.ApiTool tool, Map<String, Object> parameters, Duration timeout) {
+        return Mono.defer(() -> {
             String url = tool.getUrl();
             
             if ("GET".equalsIgnoreCase(tool.getMethod())) {
@@ -65,16 +164,7 @@ public class DynamicToolService {
                 return requestSpec
                         .retrieve()
                         .bodyToMono(String.class)
-                        .timeout(Duration.ofSeconds(30))
-                        .doOnSuccess(response -> log.info("API工具 {} 调用成功", toolName))
-                        .onErrorResume(WebClientResponseException.class, e -> {
-                            log.error("API工具 {} 调用失败，状态码: {}", toolName, e.getStatusCode(), e);
-                            return Mono.just("调用API工具失败: " + e.getMessage());
-                        })
-                        .onErrorResume(Exception.class, e -> {
-                            log.error("调用API工具 {} 时发生异常", toolName, e);
-                            return Mono.just("调用API工具失败: " + e.getMessage());
-                        });
+                        .timeout(timeout);
                         
             } else {
                 // POST请求：将参数放在请求体中
@@ -94,22 +184,56 @@ public class DynamicToolService {
                 return requestWithBody
                         .retrieve()
                         .bodyToMono(String.class)
-                        .timeout(Duration.ofSeconds(30))
-                        .doOnSuccess(response -> log.info("API工具 {} 调用成功", toolName))
-                        .onErrorResume(WebClientResponseException.class, e -> {
-                            log.error("API工具 {} 调用失败，状态码: {}", toolName, e.getStatusCode(), e);
-                            return Mono.just("调用API工具失败: " + e.getMessage());
-                        })
-                        .onErrorResume(Exception.class, e -> {
-                            log.error("调用API工具 {} 时发生异常", toolName, e);
-                            return Mono.just("调用API工具失败: " + e.getMessage());
-                        });
+                        .timeout(timeout);
             }
-            
-        } catch (Exception e) {
-            log.error("调用API工具 {} 时发生异常", toolName, e);
-            return Mono.just("调用API工具失败: " + e.getMessage());
+        });
+    }
+    
+    /**
+     * 去除上游JSON响应中的空白以减少传输与客户端解析开销；数字按原文输出，非JSON内容原样返回
+     * 在Netty事件循环线程上执行，默认关闭
+     */
+    private String minify(String body) {
+        if (!minifyJson || body == null) {
+            return body;
+        }
+        String trimmed = body.stripLeading();
+        if (trimmed.isEmpty() || (trimmed.charAt(0) != '{' && trimmed.charAt(0) != '[')) {
+            return body;
+        }
+        
+        StringWriter writer = new StringWriter(body.length());
+        try (JsonParser parser = objectMapper.getFactory().createParser(body);
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(writer)) {
+            while (parser.nextToken() != null) {
+                ExactJsonCopier.copyEvent(parser, generator);
+            }
+        } catch (IOException e) {
+            log.debug("响应不是有效JSON，跳过压缩: {}", e.getMessage());
+            return body;
         }
+        return writer.toString();
+    }
+    
+    /**
+     * 预热上游连接：初始化事件循环与DNS解析器，并为每个上游主机预先建立连接放入连接池
+     * 预热失败只记录日志，不影响启动
+     */
+    public Mono<Void> warmUpConnections(Collection<String> origins, int connectionsPerHost, Duration timeout) {
+        return httpClient.warmup()
+                .thenMany(Flux.fromIterable(origins))
+                .flatMap(origin -> Flux.range(0, connectionsPerHost)
+                        .flatMap(i -> webClient.head()
+                                .uri(origin)
+                                .exchangeToMono(response -> response.releaseBody())
+                                .timeout(timeout))
+                        .then()
+                        .doOnSuccess(v -> log.info("上游主机 {} 连接预热完成", origin))
+                        .onErrorResume(e -> {
+                            log.warn("上游主机 {} 连接预热失败: {}", origin, e.getMessage());
+                            return Mono.empty();
+                        }))
+                .then();
     }
     
     /**
@@ -118,6 +242,7 @@ public class DynamicToolService {
     public void reloadTools() {
         log.info("重新加载API工具配置...");
         databaseApiToolConfig.reloadTools();
+        toolCallBatcher.reset();
         log.info("API工具配置重新加载完成");
     }
     
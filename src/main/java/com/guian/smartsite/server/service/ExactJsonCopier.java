@@ -0,0 +1,44 @@
+package com.guian.smartsite.server.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * JSON原文复制工具 - 数字按原始文本输出，避免经过 double 转换后丢失精度或改变写法（如 1.50、1e3）
+ */
+final class ExactJsonCopier {
+
+    private ExactJsonCopier() {
+    }
+
+    /**
+     * 复制解析器当前所在的单个事件
+     */
+    static void copyEvent(JsonParser parser, JsonGenerator generator) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            generator.writeNumber(parser.getText());
+        } else {
+            generator.copyCurrentEvent(parser);
+        }
+    }
+
+    /**
+     * 复制解析器当前所在的完整值（标量、对象或数组），结束时解析器停在该值的最后一个事件上
+     */
+    static void copyValue(JsonParser parser, JsonGenerator generator) throws IOException {
+        int depth = 0;
+        do {
+            JsonToken token = parser.currentToken();
+            copyEvent(parser, generator);
+            if (token.isStructStart()) {
+                depth++;
+            } else if (token.isStructEnd()) {
+                depth--;
+            }
+        } while (depth > 0 && parser.nextToken() != null);
+    }
+}
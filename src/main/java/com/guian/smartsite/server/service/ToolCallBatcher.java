@@ -0,0 +1,427 @@
+package com.guian.smartsite.server.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.guian.smartsite.server.config.DatabaseApiToolConfig;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 工具调用微批处理器 - 合并短时间窗口内对同一工具、仅批量键参数不同的并发调用
+ * 合并后的请求中批量键参数为所有键值（GET以逗号拼接，其他方法为数组），由上游转换为 IN (...) 查询；
+ * 响应按记录中的批量键字段拆分回各调用方，支持的响应形态：
+ * <ul>
+ *   <li>记录数组：[{"id": 1, ...}, ...]</li>
+ *   <li>包装对象：{"code": 200, "msg": "ok", "data": [...]}，结果数组字段为 data/rows/records/list/features 之一，
+ *       其余字段只能是 code/msg/message/success/status/type 这类与记录无关的状态字段</li>
+ *   <li>GeoJSON FeatureCollection：{"type": "FeatureCollection", "features": [...]}，键可位于 properties 中</li>
+ * </ul>
+ * 包含 total、count、bbox、分页信息等汇总字段、记录缺少批量键或出现未请求的键值时无法拆分，
+ * 此时回退为逐个调用并原样返回，且该工具此后不再合并（重新加载工具配置后恢复）；
+ * 合并请求失败或包装对象的状态字段表示失败时同样回退为逐个调用，使每个键值得到各自的结果
+ * 合并请求与回退的单个请求各自占用一个准入许可
+ */
+@Slf4j
+class ToolCallBatcher {
+
+    /**
+     * 响应为对象时识别的结果数组字段（features 用于GeoJSON FeatureCollection）
+     */
+    private static final Set<String> RESULT_ARRAY_FIELDS = Set.of("data", "rows", "records", "list", "features");
+
+    /**
+     * 包装对象中允许原样保留的状态字段，其余字段可能是针对全部键值的汇总信息
+     */
+    private static final Set<String> ENVELOPE_FIELDS = Set.of("code", "msg", "message", "success", "status", "type");
+
+    private static final String GET_KEY_SEPARATOR = ",";
+
+    private final DynamicToolService dynamicToolService;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final Duration window;
+    private final int maxBatchSize;
+
+    private final Map<GroupKey, Batch> pending = new HashMap<>();
+
+    /**
+     * 响应形态无法拆分的工具，不再参与合并，避免每个批次都产生 1+N 次上游请求
+     */
+    private final Set<String> unsplittableTools = ConcurrentHashMap.newKeySet();
+
+    ToolCallBatcher(DynamicToolService dynamicToolService, ObjectMapper objectMapper,
+                    boolean enabled, Duration window, int maxBatchSize) {
+        this.dynamicToolService = dynamicToolService;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.window = window;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * 工具声明了批量键，且本次调用的键值为单个标量时才参与合并
+     */
+    boolean isBatchable(DatabaseApiToolConfig.ApiTool tool, Map<String, Object> parameters) {
+        String keyParam = tool.getBatchKey();
+        if (!enabled || maxBatchSize < 2 || keyParam == null || keyParam.isBlank() || parameters == null
+                || unsplittableTools.contains(tool.getName())) {
+            return false;
+        }
+        Object keyValue = parameters.get(keyParam);
+        if (keyValue instanceof String text) {
+            return !("GET".equalsIgnoreCase(tool.getMethod()) && text.contains(GET_KEY_SEPARATOR));
+        }
+        return keyValue instanceof Number || keyValue instanceof Boolean;
+    }
+
+    /**
+     * 工具配置重新加载后清除"无法拆分"标记
+     */
+    void reset() {
+        unsplittableTools.clear();
+    }
+
+    /**
+     * 提交一次调用，每个调用方的超时单独生效，不受同批其他调用方的截止时间影响
+     */
+    Mono<String> submit(DatabaseApiToolConfig.ApiTool tool, Map<String, Object> parameters,
+                        long deadline, Duration timeout) {
+        String keyParam = tool.getBatchKey();
+        Object keyValue = parameters.get(keyParam);
+        Map<String, Object> sharedParams = new TreeMap<>(parameters);
+        sharedParams.remove(keyParam);
+        // 只有其余参数完全相同（按 equals 比较）的调用才能合并
+        GroupKey groupKey = new GroupKey(tool.getName(), sharedParams);
+
+        return Mono.<String>create(sink -> {
+            Batch full = null;
+            synchronized (this) {
+                Batch batch = pending.get(groupKey);
+                if (batch == null) {
+                    Batch created = new Batch(tool, sharedParams);
+                    pending.put(groupKey, created);
+                    Mono.delay(window).subscribe(tick -> flush(groupKey, created));
+                    batch = created;
+                }
+                batch.add(keyValue, sink, deadline);
+                if (batch.size >= maxBatchSize) {
+                    pending.remove(groupKey);
+                    full = batch;
+                }
+            }
+            if (full != null) {
+                execute(full);
+            }
+        }).timeout(timeout);
+    }
+
+    private void flush(GroupKey groupKey, Batch batch) {
+        synchronized (this) {
+            if (!pending.remove(groupKey, batch)) {
+                // 已因达到批量上限提前执行
+                return;
+            }
+        }
+        execute(batch);
+    }
+
+    private void execute(Batch batch) {
+        String toolName = batch.tool.getName();
+        List<String> keys = new ArrayList<>(batch.callers.keySet());
+
+        // 只有一个键值时按普通调用处理，响应原样返回
+        if (keys.size() == 1) {
+            callIndividually(batch, keys);
+            return;
+        }
+
+        log.info("合并调用API工具: {} - {} 个键值, {} 个调用方", toolName, keys.size(), batch.size);
+        dynamicToolService.invokeAdmitted(batch.tool, batch.mergedParams(), batch.deadline)
+                .subscribe(body -> {
+                    Map<String, String> results;
+                    try {
+                        results = split(body, batch.tool.getBatchKey(), keys);
+                    } catch (FailureStatusException e) {
+                        log.warn("API工具 {} 的合并请求返回失败状态，回退为逐个调用: {}", toolName, e.getMessage());
+                        callIndividually(batch, keys);
+                        return;
+                    } catch (IOException | IllegalStateException e) {
+                        log.warn("API工具 {} 的合并响应无法拆分，回退为逐个调用且不再合并该工具: {}", toolName, e.getMessage());
+                        unsplittableTools.add(toolName);
+                        callIndividually(batch, keys);
+                        return;
+                    }
+                    for (String key : keys) {
+                        batch.complete(key, results.get(key));
+                    }
+                }, error -> {
+                    // 超时或被准入控制拒绝时逐个重试只会加重负载，直接通知所有调用方
+                    if (error instanceof TimeoutException || error instanceof AdmissionControlService.ServerBusyException) {
+                        batch.failAll(error);
+                        return;
+                    }
+                    log.warn("合并调用API工具 {} 失败，回退为逐个调用: {}", toolName, error.getMessage());
+                    callIndividually(batch, keys);
+                });
+    }
+
+    private void callIndividually(Batch batch, List<String> keys) {
+        for (String key : keys) {
+            dynamicToolService.invokeAdmitted(batch.tool, batch.paramsFor(key), batch.deadline)
+                    .subscribe(result -> batch.complete(key, result), error -> batch.fail(key, error));
+        }
+    }
+
+    /**
+     * 按批量键拆分响应，记录与保留字段按原文输出（数字不经过 double 转换）
+     *
+     * @throws FailureStatusException 包装对象的状态字段表示失败
+     * @throws IllegalStateException  响应形态不支持拆分，或出现未请求的键值
+     */
+    Map<String, String> split(String body, String keyParam, List<String> keys) throws IOException {
+        Map<String, List<String>> grouped = new HashMap<>();
+        keys.forEach(key -> grouped.put(key, new ArrayList<>()));
+        // 包装对象的字段名 -> 原文，结果数组字段的值为 null
+        Map<String, String> envelope = new LinkedHashMap<>();
+        boolean wrapped;
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            JsonToken root = parser.nextToken();
+            if (root == JsonToken.START_ARRAY) {
+                wrapped = false;
+                readRows(parser, keyParam, grouped);
+            } else if (root == JsonToken.START_OBJECT) {
+                wrapped = true;
+                String arrayField = null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.currentName();
+                    JsonToken value = parser.nextToken();
+                    if (arrayField == null && value == JsonToken.START_ARRAY && RESULT_ARRAY_FIELDS.contains(field)) {
+                        arrayField = field;
+                        envelope.put(field, null);
+                        readRows(parser, keyParam, grouped);
+                    } else if (ENVELOPE_FIELDS.contains(field) && !envelope.containsKey(field)) {
+                        String raw = copyValue(parser);
+                        if (isFailureStatus(field, raw)) {
+                            throw new FailureStatusException(field + "=" + raw);
+                        }
+                        envelope.put(field, raw);
+                    } else {
+                        throw new IllegalStateException("响应包含无法按键拆分的字段 " + field);
+                    }
+                }
+                if (arrayField == null) {
+                    throw new IllegalStateException("响应中未找到结果数组");
+                }
+            } else {
+                throw new IllegalStateException("响应不是JSON数组或对象");
+            }
+            if (parser.nextToken() != null) {
+                throw new IllegalStateException("响应包含多余内容");
+            }
+        }
+
+        Map<String, String> results = new HashMap<>();
+        for (String key : keys) {
+            StringWriter writer = new StringWriter();
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(writer)) {
+                if (!wrapped) {
+                    writeRows(generator, grouped.get(key));
+                } else {
+                    generator.writeStartObject();
+                    for (Map.Entry<String, String> field : envelope.entrySet()) {
+                        generator.writeFieldName(field.getKey());
+                        if (field.getValue() == null) {
+                            writeRows(generator, grouped.get(key));
+                        } else {
+                            generator.writeRawValue(field.getValue());
+                        }
+                    }
+                    generator.writeEndObject();
+                }
+            }
+            results.put(key, writer.toString());
+        }
+        return results;
+    }
+
+    private void readRows(JsonParser parser, String keyParam, Map<String, List<String>> grouped) throws IOException {
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            Row row = readRow(parser, keyParam);
+            List<String> target = grouped.get(row.key());
+            // 键值按文本匹配（如请求 1.0 而记录为 1），无法确定归属时不拆分
+            if (target == null) {
+                throw new IllegalStateException("结果记录的批量键 " + row.key() + " 不在请求的键值中");
+            }
+            target.add(row.json());
+        }
+    }
+
+    /**
+     * 复制一条记录，同时读取其批量键（记录顶层字段或 properties 下的字段）的原文
+     */
+    private Row readRow(JsonParser parser, String keyParam) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new IllegalStateException("结果记录不是JSON对象");
+        }
+
+        StringWriter writer = new StringWriter();
+        String key = null;
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(writer)) {
+            int depth = 0;
+            do {
+                JsonToken token = parser.currentToken();
+                if (key == null && token.isScalarValue() && token != JsonToken.VALUE_NULL
+                        && isKeyField(parser, depth, keyParam)) {
+                    key = parser.getText();
+                }
+                ExactJsonCopier.copyEvent(parser, generator);
+                if (token.isStructStart()) {
+                    depth++;
+                } else if (token.isStructEnd()) {
+                    depth--;
+                }
+            } while (depth > 0 && parser.nextToken() != null);
+        }
+
+        if (key == null) {
+            throw new IllegalStateException("结果记录缺少批量键字段 " + keyParam);
+        }
+        return new Row(key, writer.toString());
+    }
+
+    private static boolean isKeyField(JsonParser parser, int depth, String keyParam) {
+        if (!keyParam.equals(parser.currentName())) {
+            return false;
+        }
+        if (depth == 1) {
+            return true;
+        }
+        JsonStreamContext parent = parser.getParsingContext().getParent();
+        return depth == 2 && parent != null && "properties".equals(parent.getCurrentName());
+    }
+
+    /**
+     * 状态字段是否表示失败：success 须为 true，code/status 须为 0、2xx 或 ok/success
+     */
+    private static boolean isFailureStatus(String field, String raw) {
+        String value = raw.length() >= 2 && raw.startsWith("\"") ? raw.substring(1, raw.length() - 1) : raw;
+        if ("success".equals(field)) {
+            return !"true".equalsIgnoreCase(value);
+        }
+        if (!"code".equals(field) && !"status".equals(field)) {
+            return false;
+        }
+        if ("ok".equalsIgnoreCase(value) || "success".equalsIgnoreCase(value)) {
+            return false;
+        }
+        try {
+            int code = Integer.parseInt(value);
+            return code != 0 && (code < 200 || code >= 300);
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private String copyValue(JsonParser parser) throws IOException {
+        StringWriter writer = new StringWriter();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(writer)) {
+            ExactJsonCopier.copyValue(parser, generator);
+        }
+        return writer.toString();
+    }
+
+    private static void writeRows(JsonGenerator generator, List<String> rows) throws IOException {
+        generator.writeStartArray();
+        for (String row : rows) {
+            generator.writeRawValue(row);
+        }
+        generator.writeEndArray();
+    }
+
+    private record GroupKey(String toolName, Map<String, Object> sharedParams) {
+    }
+
+    private record Row(String key, String json) {
+    }
+
+    /**
+     * 响应的状态字段表示失败，整批结果不能分给各调用方
+     */
+    static class FailureStatusException extends IllegalStateException {
+        FailureStatusException(String message) {
+            super("响应状态表示失败: " + message);
+        }
+    }
+
+    /**
+     * 一个待执行的批次，键值相同的调用方共享同一份结果
+     */
+    private static class Batch {
+        private final DatabaseApiToolConfig.ApiTool tool;
+        private final Map<String, Object> sharedParams;
+        private final Map<String, Object> keyValues = new LinkedHashMap<>();
+        private final Map<String, List<MonoSink<String>>> callers = new LinkedHashMap<>();
+        private long deadline = Long.MIN_VALUE;
+        private int size;
+
+        Batch(DatabaseApiToolConfig.ApiTool tool, Map<String, Object> sharedParams) {
+            this.tool = tool;
+            this.sharedParams = sharedParams;
+        }
+
+        void add(Object keyValue, MonoSink<String> sink, long callerDeadline) {
+            String key = String.valueOf(keyValue);
+            keyValues.putIfAbsent(key, keyValue);
+            callers.computeIfAbsent(key, k -> new ArrayList<>()).add(sink);
+            // 上游请求的截止时间取各调用方中最晚的一个，每个调用方自身的超时在 submit 中单独生效
+            deadline = Math.max(deadline, callerDeadline);
+            size++;
+        }
+
+        Map<String, Object> paramsFor(String key) {
+            Map<String, Object> params = new HashMap<>(sharedParams);
+            params.put(tool.getBatchKey(), keyValues.get(key));
+            return params;
+        }
+
+        Map<String, Object> mergedParams() {
+            Map<String, Object> params = new HashMap<>(sharedParams);
+            if ("GET".equalsIgnoreCase(tool.getMethod())) {
+                params.put(tool.getBatchKey(), String.join(GET_KEY_SEPARATOR, keyValues.keySet()));
+            } else {
+                params.put(tool.getBatchKey(), new ArrayList<>(keyValues.values()));
+            }
+            return params;
+        }
+
+        void complete(String key, String result) {
+            callers.get(key).forEach(sink -> sink.success(result));
+        }
+
+        void fail(String key, Throwable error) {
+            callers.get(key).forEach(sink -> sink.error(error));
+        }
+
+        void failAll(Throwable error) {
+            callers.values().forEach(sinks -> sinks.forEach(sink -> sink.error(error)));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.guian.smartsite.server.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AdmissionControlServiceTest {
+
+    private static final Map<String, Object> NO_PARAMS = Map.of();
+
+    private AdmissionControlService create(int initialLimit, int perToolLimit, int maxQueueSize) {
+        AdmissionControlService service = new AdmissionControlService();
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "initialLimit", initialLimit);
+        ReflectionTestUtils.setField(service, "minLimit", 1);
+        ReflectionTestUtils.setField(service, "maxLimit", 100);
+        ReflectionTestUtils.setField(service, "perToolLimit", perToolLimit);
+        ReflectionTestUtils.setField(service, "maxQueueSize", maxQueueSize);
+        ReflectionTestUtils.setField(service, "defaultTimeoutMs", 30000L);
+        ReflectionTestUtils.setField(service, "latencyTolerance", 2.0);
+        ReflectionTestUtils.setField(service, "backoffRatio", 0.5);
+        service.init();
+        return service;
+    }
+
+    private AdmissionControlService.Permit admit(AdmissionControlService service, String toolName) {
+        return service.acquire(toolName, service.resolveDeadline(NO_PARAMS)).block(Duration.ofSeconds(1));
+    }
+
+    @Test
+    void queuesOverPerToolLimitAndGrantsOnRelease() {
+        AdmissionControlService service = create(10, 2, 10);
+        AdmissionControlService.Permit first = admit(service, "tool");
+        admit(service, "tool");
+
+        AtomicReference<AdmissionControlService.Permit> queued = new AtomicReference<>();
+        service.acquire("tool", service.resolveDeadline(NO_PARAMS)).subscribe(queued::set);
+        assertNull(queued.get());
+        assertEquals(1, service.snapshot().get("queued"));
+
+        first.complete();
+        assertNotNull(queued.get());
+        assertEquals(0, service.snapshot().get("queued"));
+        assertEquals(2, service.snapshot().get("inFlight"));
+    }
+
+    @Test
+    void perToolLimitDoesNotBlockOtherTools() {
+        AdmissionControlService service = create(10, 1, 10);
+        admit(service, "a");
+
+        assertNotNull(admit(service, "b"));
+        assertEquals(2, service.snapshot().get("inFlight"));
+    }
+
+    @Test
+    void rejectsWhenQueueIsFull() {
+        AdmissionControlService service = create(10, 1, 1);
+        admit(service, "tool");
+        service.acquire("tool", service.resolveDeadline(NO_PARAMS)).subscribe();
+
+        assertThrows(AdmissionControlService.ServerBusyException.class, () -> admit(service, "tool"));
+        assertEquals(1L, service.snapshot().get("rejected"));
+    }
+
+    @Test
+    void rejectsImmediatelyWhenDeadlineLeavesNoTimeToWait() {
+        AdmissionControlService service = create(10, 1, 10);
+        admit(service, "tool");
+        long deadline = service.resolveDeadline(Map.of("_meta", Map.of("timeoutMs", 0)));
+
+        assertThrows(AdmissionControlService.ServerBusyException.class,
+                () -> service.acquire("tool", deadline).block(Duration.ofSeconds(1)));
+        assertEquals(0, service.snapshot().get("queued"));
+    }
+
+    @Test
+    void queuedCallIsRejectedWhenDeadlineExpires() {
+        AdmissionControlService service = create(10, 1, 10);
+        admit(service, "tool");
+        long deadline = service.resolveDeadline(Map.of("_meta", Map.of("timeoutMs", 50)));
+
+        assertThrows(AdmissionControlService.ServerBusyException.class,
+                () -> service.acquire("tool", deadline).block(Duration.ofSeconds(2)));
+        assertEquals(0, service.snapshot().get("queued"));
+    }
+
+    @Test
+    void cancelledWaiterLeavesQueue() {
+        AdmissionControlService service = create(10, 1, 10);
+        admit(service, "tool");
+        Disposable waiting = service.acquire("tool", service.resolveDeadline(NO_PARAMS)).subscribe();
+        assertEquals(1, service.snapshot().get("queued"));
+
+        waiting.dispose();
+        assertEquals(0, service.snapshot().get("queued"));
+    }
+
+    @Test
+    void failureUnderLowUtilizationDoesNotShrinkLimit() {
+        AdmissionControlService service = create(20, 10, 10);
+        admit(service, "tool").fail(new TimeoutException());
+
+        assertEquals(20, service.snapshot().get("limit"));
+    }
+
+    @Test
+    void overloadFailureNearLimitShrinksLimit() {
+        AdmissionControlService service = create(4, 10, 10);
+        AdmissionControlService.Permit permit = admit(service, "tool");
+        for (int i = 0; i < 3; i++) {
+            admit(service, "tool");
+        }
+
+        permit.fail(new TimeoutException());
+        assertEquals(2, service.snapshot().get("limit"));
+    }
+
+    @Test
+    void clientErrorNearLimitIsNotTreatedAsOverload() {
+        AdmissionControlService service = create(4, 10, 10);
+        AdmissionControlService.Permit permit = admit(service, "tool");
+        for (int i = 0; i < 3; i++) {
+            admit(service, "tool");
+        }
+
+        permit.fail(WebClientResponseException.create(404, "Not Found", null, null, null));
+        assertEquals(5, service.snapshot().get("limit"));
+    }
+}
@@ -0,0 +1,226 @@
+package com.guian.smartsite.server.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.guian.smartsite.server.config.DatabaseApiToolConfig;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuple3;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ToolCallBatcherTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+    private static final long DEADLINE = Long.MAX_VALUE;
+
+    private final DynamicToolService dynamicToolService = mock(DynamicToolService.class);
+    private final ToolCallBatcher batcher = new ToolCallBatcher(dynamicToolService, new ObjectMapper(),
+            true, Duration.ofMillis(50), 50);
+
+    private DatabaseApiToolConfig.ApiTool tool() {
+        DatabaseApiToolConfig.ApiTool tool = new DatabaseApiToolConfig.ApiTool();
+        tool.setName("site");
+        tool.setUrl("http://localhost/site");
+        tool.setMethod("GET");
+        tool.setBatchKey("id");
+        return tool;
+    }
+
+    private Mono<String> submit(DatabaseApiToolConfig.ApiTool tool, Map<String, Object> parameters) {
+        return batcher.submit(tool, parameters, DEADLINE, TIMEOUT);
+    }
+
+    @Test
+    void splitsArrayResponseByKey() throws Exception {
+        Map<String, String> results = batcher.split(
+                "[{\"id\":1,\"v\":\"a\"},{\"id\":2,\"v\":\"b\"},{\"id\":1,\"v\":\"c\"}]",
+                "id", List.of("1", "2"));
+
+        assertEquals("[{\"id\":1,\"v\":\"a\"},{\"id\":1,\"v\":\"c\"}]", results.get("1"));
+        assertEquals("[{\"id\":2,\"v\":\"b\"}]", results.get("2"));
+    }
+
+    @Test
+    void splitsDataWrapperAndKeepsStatusFields() throws Exception {
+        Map<String, String> results = batcher.split(
+                "{\"code\":200,\"msg\":\"ok\",\"data\":[{\"id\":\"a\"},{\"id\":\"b\"}]}",
+                "id", List.of("a", "b", "c"));
+
+        assertEquals("{\"code\":200,\"msg\":\"ok\",\"data\":[{\"id\":\"a\"}]}", results.get("a"));
+        assertEquals("{\"code\":200,\"msg\":\"ok\",\"data\":[{\"id\":\"b\"}]}", results.get("b"));
+        assertEquals("{\"code\":200,\"msg\":\"ok\",\"data\":[]}", results.get("c"));
+    }
+
+    @Test
+    void splitsGeoJsonFeaturesByPropertiesKey() throws Exception {
+        String body = "{\"type\":\"FeatureCollection\",\"features\":["
+                + "{\"type\":\"Feature\",\"properties\":{\"id\":7},\"geometry\":{\"type\":\"Point\",\"coordinates\":[1,2]}},"
+                + "{\"type\":\"Feature\",\"properties\":{\"id\":8},\"geometry\":null}]}";
+
+        Map<String, String> results = batcher.split(body, "id", List.of("7", "8"));
+
+        assertEquals("{\"type\":\"FeatureCollection\",\"features\":["
+                + "{\"type\":\"Feature\",\"properties\":{\"id\":7},\"geometry\":{\"type\":\"Point\",\"coordinates\":[1,2]}}]}",
+                results.get("7"));
+    }
+
+    @Test
+    void keepsNumberTextVerbatim() throws Exception {
+        Map<String, String> results = batcher.split(
+                "[{\"id\":1,\"x\":106.123456789012345678,\"y\":1.50,\"z\":1e3}]", "id", List.of("1"));
+
+        assertEquals("[{\"id\":1,\"x\":106.123456789012345678,\"y\":1.50,\"z\":1e3}]", results.get("1"));
+    }
+
+    @Test
+    void rejectsRowsWithoutKey() {
+        assertThrows(IllegalStateException.class,
+                () -> batcher.split("[{\"id\":1},{\"name\":\"x\"}]", "id", List.of("1")));
+    }
+
+    @Test
+    void rejectsRowsWithUnrequestedKey() {
+        assertThrows(IllegalStateException.class,
+                () -> batcher.split("[{\"id\":1},{\"id\":2}]", "id", List.of("1.0", "2")));
+    }
+
+    @Test
+    void rejectsAggregateFields() {
+        assertThrows(IllegalStateException.class,
+                () -> batcher.split("{\"code\":200,\"total\":2,\"data\":[{\"id\":1},{\"id\":2}]}", "id", List.of("1", "2")));
+        assertThrows(IllegalStateException.class,
+                () -> batcher.split("{\"type\":\"FeatureCollection\",\"bbox\":[0,0,1,1],\"features\":[]}", "id", List.of("1")));
+    }
+
+    @Test
+    void reportsFailureStatusSeparately() {
+        assertThrows(ToolCallBatcher.FailureStatusException.class,
+                () -> batcher.split("{\"code\":400,\"msg\":\"id 3 invalid\",\"data\":[]}", "id", List.of("1", "3")));
+        assertThrows(ToolCallBatcher.FailureStatusException.class,
+                () -> batcher.split("{\"success\":false,\"data\":[]}", "id", List.of("1")));
+    }
+
+    @Test
+    void mergesConcurrentCallsAndSharesResultsForDuplicateKeys() {
+        DatabaseApiToolConfig.ApiTool tool = tool();
+        when(dynamicToolService.invokeAdmitted(any(), any(), anyLong()))
+                .thenReturn(Mono.just("[{\"id\":1,\"v\":\"a\"},{\"id\":2,\"v\":\"b\"}]"));
+
+        Tuple3<String, String, String> results = Mono.zip(
+                submit(tool, Map.of("id", 1, "region", "x")),
+                submit(tool, Map.of("id", 1, "region", "x")),
+                submit(tool, Map.of("id", 2, "region", "x"))).block(TIMEOUT);
+
+        assertEquals("[{\"id\":1,\"v\":\"a\"}]", results.getT1());
+        assertEquals("[{\"id\":1,\"v\":\"a\"}]", results.getT2());
+        assertEquals("[{\"id\":2,\"v\":\"b\"}]", results.getT3());
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Map<String, Object>> params = ArgumentCaptor.forClass(Map.class);
+        verify(dynamicToolService, times(1)).invokeAdmitted(eq(tool), params.capture(), anyLong());
+        assertEquals(Map.of("id", "1,2", "region", "x"), params.getValue());
+    }
+
+    @Test
+    void returnsLoneCallerBodyUntouched() {
+        DatabaseApiToolConfig.ApiTool tool = tool();
+        String body = "{\"total\": 1, \"data\": [{\"id\": 1.0}]}";
+        when(dynamicToolService.invokeAdmitted(any(), any(), anyLong())).thenReturn(Mono.just(body));
+
+        assertEquals(body, submit(tool, Map.of("id", 1)).block(TIMEOUT));
+        assertTrue(batcher.isBatchable(tool, Map.of("id", 1)));
+    }
+
+    @Test
+    void doesNotMergeCallsWithDifferentArguments() {
+        DatabaseApiToolConfig.ApiTool tool = tool();
+        when(dynamicToolService.invokeAdmitted(any(), any(), anyLong()))
+                .thenReturn(Mono.just("[{\"id\":1}]"));
+
+        Mono.zip(
+                submit(tool, Map.of("id", 1, "region", "1")),
+                submit(tool, Map.of("id", 1, "region", 1))).block(TIMEOUT);
+
+        verify(dynamicToolService, times(2)).invokeAdmitted(eq(tool), any(), anyLong());
+    }
+
+    @Test
+    void stopsBatchingToolWhoseResponseCannotBeSplit() {
+        DatabaseApiToolConfig.ApiTool tool = tool();
+        when(dynamicToolService.invokeAdmitted(any(), any(), anyLong()))
+                .thenReturn(Mono.just("{\"total\":2,\"data\":[]}"));
+
+        Mono.zip(submit(tool, Map.of("id", 1)), submit(tool, Map.of("id", 2))).block(TIMEOUT);
+
+        // 一次合并请求 + 每个键值一次单独请求
+        verify(dynamicToolService, times(3)).invokeAdmitted(eq(tool), any(), anyLong());
+        assertFalse(batcher.isBatchable(tool, Map.of("id", 1)));
+
+        batcher.reset();
+        assertTrue(batcher.isBatchable(tool, Map.of("id", 1)));
+    }
+
+    @Test
+    void fallsBackToIndividualCallsWhenMergedRequestFails() {
+        DatabaseApiToolConfig.ApiTool tool = tool();
+        when(dynamicToolService.invokeAdmitted(any(), any(), anyLong())).thenReturn(
+                Mono.error(WebClientResponseException.create(400, "Bad Request", null, null, null)),
+                Mono.just("[{\"id\":1}]"),
+                Mono.error(WebClientResponseException.create(403, "Forbidden", null, null, null)));
+
+        Mono<String> first = submit(tool, Map.of("id", 1));
+        Mono<String> second = submit(tool, Map.of("id", 2)).onErrorResume(e -> Mono.just("failed"));
+        Tuple2<String, String> results = Mono.zip(first, second).block(TIMEOUT);
+
+        assertEquals("[{\"id\":1}]", results.getT1());
+        assertEquals("failed", results.getT2());
+        assertTrue(batcher.isBatchable(tool, Map.of("id", 1)));
+    }
+
+    @Test
+    void fallsBackToIndividualCallsOnFailureStatus() {
+        DatabaseApiToolConfig.ApiTool tool = tool();
+        when(dynamicToolService.invokeAdmitted(any(), any(), anyLong())).thenReturn(
+                Mono.just("{\"code\":400,\"msg\":\"id 2 invalid\",\"data\":[]}"),
+                Mono.just("{\"code\":200,\"data\":[{\"id\":1}]}"),
+                Mono.just("{\"code\":400,\"msg\":\"id 2 invalid\",\"data\":[]}"));
+
+        Tuple2<String, String> results = Mono.zip(
+                submit(tool, Map.of("id", 1)),
+                submit(tool, Map.of("id", 2))).block(TIMEOUT);
+
+        assertEquals("{\"code\":200,\"data\":[{\"id\":1}]}", results.getT1());
+        assertEquals("{\"code\":400,\"msg\":\"id 2 invalid\",\"data\":[]}", results.getT2());
+        assertTrue(batcher.isBatchable(tool, Map.of("id", 1)));
+    }
+
+    @Test
+    void appliesEachCallersOwnTimeout() {
+        DatabaseApiToolConfig.ApiTool tool = tool();
+        when(dynamicToolService.invokeAdmitted(any(), any(), anyLong())).thenReturn(Mono.never());
+
+        RuntimeException error = assertThrows(RuntimeException.class,
+                () -> batcher.submit(tool, Map.of("id", 1), DEADLINE, Duration.ofMillis(100)).block(TIMEOUT));
+        assertInstanceOf(TimeoutException.class, Exceptions.unwrap(error));
+    }
+}